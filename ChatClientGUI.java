@@ -3,11 +3,14 @@ import java.io.*;
 import java.awt.*;
 import java.awt.event.*;
 import javax.swing.*;
+import javax.net.ssl.*;
 
 public class ChatClientGUI {
-    private Socket socket;
-    private DataOutputStream dos;
-    private DataInputStream dis;
+    private volatile Socket socket;
+    private volatile DataOutputStream dos;
+    private volatile DataInputStream dis;
+    private final Object writeLock = new Object();
+    private final IconCache iconCache = new IconCache();
 
     private JFrame frame;
     private JTextArea messageArea;
@@ -27,11 +30,7 @@ public class ChatClientGUI {
     private JButton kickFromGroupButton;
     private JButton recordVoiceButton;
 
-    public ChatClientGUI(String serverAddress, int port) throws IOException {
-        socket = new Socket(serverAddress, port);
-        dos = new DataOutputStream(socket.getOutputStream());
-        dis = new DataInputStream(socket.getInputStream());
-
+    public ChatClientGUI(String serverAddress, int port) {
         frame = new JFrame("Chat Client");
         messageArea = new JTextArea(20, 10);
         messageField = new JTextField(20);
@@ -127,7 +126,7 @@ public class ChatClientGUI {
         quitButton.addActionListener(new ActionListener() {
             public void actionPerformed(ActionEvent e) {
                 try {
-                    dos.writeUTF("Quit");
+                    send("Quit");
                     socket.close();
                     frame.dispose();
                 } catch (IOException ex) {
@@ -184,16 +183,81 @@ public class ChatClientGUI {
             }
         });
         
-        
-
-        new Thread(new ReadThread()).start();
 
+        setConnected(false);
         frame.pack();
         frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
         frame.setVisible(true);
 
-        String clientName = JOptionPane.showInputDialog(frame, "Enter your name:");
-        dos.writeUTF(clientName);
+        new Thread(() -> connect(serverAddress, port), "connect").start();
+    }
+
+    // Runs off the UI path so a slow or unreachable server does not hold back the first frame.
+    private void connect(String serverAddress, int port) {
+        try {
+            Socket newSocket;
+            if (Boolean.getBoolean("chat.tls")) {
+                SSLSocket tlsSocket = (SSLSocket) SSLSocketFactory.getDefault().createSocket(serverAddress, port);
+                // Without endpoint identification any trusted certificate, for any host, is accepted.
+                SSLParameters parameters = tlsSocket.getSSLParameters();
+                parameters.setEndpointIdentificationAlgorithm("HTTPS");
+                tlsSocket.setSSLParameters(parameters);
+                tlsSocket.setTcpNoDelay(true);
+                tlsSocket.startHandshake();
+                newSocket = tlsSocket;
+            } else {
+                newSocket = new Socket(serverAddress, port);
+            }
+            dos = new DataOutputStream(newSocket.getOutputStream());
+            dis = new DataInputStream(newSocket.getInputStream());
+            socket = newSocket;
+        } catch (IOException ex) {
+            ex.printStackTrace();
+            SwingUtilities.invokeLater(() -> JOptionPane.showMessageDialog(frame,
+                    "Could not connect to " + serverAddress + ":" + port + ": " + ex.getMessage(),
+                    "Connection Error", JOptionPane.ERROR_MESSAGE));
+            return;
+        }
+
+        new Thread(new ReadThread()).start();
+
+        SwingUtilities.invokeLater(() -> {
+            setConnected(true);
+            String clientName = JOptionPane.showInputDialog(frame, "Enter your name:");
+            try {
+                send(clientName);
+            } catch (IOException ex) {
+                ex.printStackTrace();
+            }
+        });
+    }
+
+    // Every frame goes out under writeLock so a PONG from the ReadThread cannot land in
+    // the middle of a file upload streamed from the event thread.
+    private void send(String msg) throws IOException {
+        synchronized (writeLock) {
+            dos.writeUTF(msg);
+        }
+    }
+
+    // Control frames are matched exactly: "RECONNECT" or "RECONNECT host:port". Chat text
+    // always carries a sender prefix and the server reserves control words as names.
+    private static boolean isReconnectNotice(String msg) {
+        return msg.equals("RECONNECT")
+                || (msg.startsWith("RECONNECT ") && msg.indexOf(' ', "RECONNECT ".length()) == -1);
+    }
+
+    private void setConnected(boolean connected) {
+        messageField.setEnabled(connected);
+        sendButton.setEnabled(connected);
+        quitButton.setEnabled(connected);
+        sendFileButton.setEnabled(connected);
+        downloadFileButton.setEnabled(connected);
+        createGroupButton.setEnabled(connected);
+        addToGroupButton.setEnabled(connected);
+        sendGroupMessageButton.setEnabled(connected);
+        kickFromGroupButton.setEnabled(connected);
+        recordVoiceButton.setEnabled(connected);
     }
 
     private void recordVoiceMessage() {
@@ -203,15 +267,15 @@ public class ChatClientGUI {
     
         String fileName = "voice_message.mp3"; // Example file name
         File file = new File(fileName);
-        try {
-            dos.writeUTF("VOICE " + file.getName() + " " + file.length());
-            FileInputStream fis = new FileInputStream(file);
-            byte[] buffer = new byte[4096];
-            int bytesRead;
-            while ((bytesRead = fis.read(buffer)) != -1) {
-                dos.write(buffer, 0, bytesRead);
+        try (FileInputStream fis = new FileInputStream(file)) {
+            synchronized (writeLock) {
+                dos.writeUTF("VOICE " + file.getName() + " " + file.length());
+                byte[] buffer = new byte[4096];
+                int bytesRead;
+                while ((bytesRead = fis.read(buffer)) != -1) {
+                    dos.write(buffer, 0, bytesRead);
+                }
             }
-            fis.close();
         } catch (IOException ex) {
             ex.printStackTrace();
         }
@@ -245,7 +309,7 @@ public class ChatClientGUI {
     private void sendMessage() {
         try {
             String msg = messageField.getText();
-            dos.writeUTF(msg);
+            send(msg);
             messageField.setText("");
             if (msg.equalsIgnoreCase("Quit")) {
                 socket.close();
@@ -261,15 +325,15 @@ public class ChatClientGUI {
         int returnValue = fileChooser.showOpenDialog(frame);
         if (returnValue == JFileChooser.APPROVE_OPTION) {
             File file = fileChooser.getSelectedFile();
-            try {
-                dos.writeUTF("FILE " + file.getName() + " " + file.length());
-                FileInputStream fis = new FileInputStream(file);
-                byte[] buffer = new byte[4096];
-                int bytesRead;
-                while ((bytesRead = fis.read(buffer)) != -1) {
-                    dos.write(buffer, 0, bytesRead);
+            try (FileInputStream fis = new FileInputStream(file)) {
+                synchronized (writeLock) {
+                    dos.writeUTF("FILE " + file.getName() + " " + file.length());
+                    byte[] buffer = new byte[4096];
+                    int bytesRead;
+                    while ((bytesRead = fis.read(buffer)) != -1) {
+                        dos.write(buffer, 0, bytesRead);
+                    }
                 }
-                fis.close();
             } catch (IOException ex) {
                 ex.printStackTrace();
             }
@@ -283,23 +347,24 @@ public class ChatClientGUI {
             return;
         }
 
-        dos.writeUTF("VOICE " + file.getName() + " " + file.length());
-        FileInputStream fis = new FileInputStream(file);
-        byte[] buffer = new byte[4096];
-        int bytesRead;
+        try (FileInputStream fis = new FileInputStream(file)) {
+            synchronized (writeLock) {
+                dos.writeUTF("VOICE " + file.getName() + " " + file.length());
+                byte[] buffer = new byte[4096];
+                int bytesRead;
 
-        while ((bytesRead = fis.read(buffer)) != -1) {
-            dos.write(buffer, 0, bytesRead);
+                while ((bytesRead = fis.read(buffer)) != -1) {
+                    dos.write(buffer, 0, bytesRead);
+                }
+            }
         }
-
-        fis.close();
     }
 
     private void downloadFile() {
         String fileName = JOptionPane.showInputDialog(frame, "Enter the file name to download:");
         if (fileName != null && !fileName.isEmpty()) {
             try {
-                dos.writeUTF("DOWNLOAD " + fileName);
+                send("DOWNLOAD " + fileName);
             } catch (IOException ex) {
                 ex.printStackTrace();
             }
@@ -311,7 +376,7 @@ public class ChatClientGUI {
         String groupName = JOptionPane.showInputDialog(frame, "Enter the group name:");
         if (groupName != null && !groupName.isEmpty()) {
             try {
-                dos.writeUTF("GROUP CREATE " + groupName);
+                send("GROUP CREATE " + groupName);
             } catch (IOException ex) {
                 ex.printStackTrace();
             }
@@ -322,7 +387,7 @@ public class ChatClientGUI {
         String participantName = JOptionPane.showInputDialog(frame, "Enter the participant name:");
         if (groupName != null && !groupName.isEmpty() && participantName != null && !participantName.isEmpty()) {
             try {
-                dos.writeUTF("GROUP ADD " + groupName + " " + participantName);
+                send("GROUP ADD " + groupName + " " + participantName);
             } catch (IOException ex) {
                 ex.printStackTrace();
             }
@@ -333,7 +398,7 @@ public class ChatClientGUI {
         String message = JOptionPane.showInputDialog(frame, "Enter the message:");
         if (groupName != null && !groupName.isEmpty() && message != null && !message.isEmpty()) {
             try {
-                dos.writeUTF("GMSG " + groupName + " " + message);
+                send("GMSG " + groupName + " " + message);
             } catch (IOException ex) {
                 ex.printStackTrace();
             }
@@ -380,7 +445,7 @@ public class ChatClientGUI {
         String participantName = JOptionPane.showInputDialog(frame, "Enter the participant name:");
         if (groupName != null && !groupName.isEmpty() && participantName != null && !participantName.isEmpty()) {
             try {
-                dos.writeUTF("GROUP KICK " + groupName + " " + participantName);
+                send("GROUP KICK " + groupName + " " + participantName);
             } catch (IOException ex) {
                 ex.printStackTrace();
             }
@@ -393,6 +458,17 @@ public class ChatClientGUI {
             try {
                 while (true) {
                     String msg = dis.readUTF();
+                    if (msg.equals("PING")) {
+                        send("PONG");
+                        continue;
+                    }
+                    if (isReconnectNotice(msg)) {
+                        String target = msg.substring("RECONNECT".length()).trim();
+                        messageArea.append("Server is shutting down" + (target.isEmpty() ? "" : ", please reconnect to " + target) + ".\n");
+                        SwingUtilities.invokeLater(() -> setConnected(false));
+                        socket.close();
+                        break;
+                    }
                     if (msg.startsWith("VOICE")) {
                         String[] parts = msg.split(" ");
                         String fileName = parts[1];
@@ -438,8 +514,8 @@ public class ChatClientGUI {
     }
 
     private JButton createButtonWithIconAndText(String iconName, String text, int iconWidth, int iconHeight) {
-        ImageIcon icon = new ImageIcon(new ImageIcon(iconName).getImage().getScaledInstance(iconWidth, iconHeight, Image.SCALE_SMOOTH));
-        JButton button = new JButton(text, icon);
+        JButton button = new JButton(text);
+        iconCache.apply(button, iconName, iconWidth, iconHeight);
         button.setHorizontalTextPosition(SwingConstants.CENTER);
         button.setVerticalTextPosition(SwingConstants.BOTTOM);
         button.setMargin(new Insets(5, 5, 5, 5)); // Add padding around the text
@@ -464,10 +540,10 @@ public class ChatClientGUI {
     
 
     public static void main(String[] args) {
-        try {
-            new ChatClientGUI("localhost", 1234);
-        } catch (IOException ex) {
-            ex.printStackTrace();
+        long start = System.nanoTime();
+        new ChatClientGUI("localhost", 1234);
+        if (Boolean.getBoolean("chat.traceStartup")) {
+            System.out.println("Time to first frame: " + (System.nanoTime() - start) / 1_000_000 + " ms");
         }
     }
 }
@@ -1,22 +1,187 @@
 import java.net.*;
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import javax.net.ssl.*;
 
 public class ChatServer {
-    private static Map<String, ClientHandler> clientHandlers = new HashMap<>();
-    private static Map<String, Set<String>> groups = new HashMap<>();
+    static final long HEARTBEAT_INTERVAL_MS = Long.getLong("chat.heartbeatIntervalMs", 20000);
+    static final long IDLE_TIMEOUT_MS = Long.getLong("chat.idleTimeoutMs", 60000);
+    static final long HEARTBEAT_MAX_RTT_MS = Long.getLong("chat.heartbeatMaxRttMs", 1000);
+    static final long LOGIN_TIMEOUT_MS = Long.getLong("chat.loginTimeoutMs", 300000);
+    static final long DRAIN_DEADLINE_MS = Long.getLong("chat.drainDeadlineMs", 10000);
+    static final String RECONNECT_TO = System.getProperty("chat.reconnectTo", "");
+    static final boolean TLS = Boolean.getBoolean("chat.tls");
+    static final int HANDSHAKE_TIMEOUT_MS = Integer.getInteger("chat.tls.handshakeTimeoutMs", 10000);
+    static final long FLUSH_MAX_LATENCY_MS = Long.getLong("chat.flushMaxLatencyMs", 0);
+    static final int FLUSH_MAX_BYTES = Integer.getInteger("chat.flushMaxBytes", 64 * 1024);
+    static final int MAX_PENDING_BYTES = Integer.getInteger("chat.maxPendingBytes", 8 << 20);
+    static final long CLOSE_LINGER_MS = Long.getLong("chat.closeLingerMs", 2000);
+    static final boolean TCP_NO_DELAY = Boolean.parseBoolean(System.getProperty("chat.tcpNoDelay", "true"));
+    static final long WHEEL_TICK_MS = Long.getLong("chat.wheelTickMs", 100);
+    static final TimerWheel timerWheel = new TimerWheel(WHEEL_TICK_MS, 512);
+    static final LongAdder framesSent = new LongAdder();
+    static final LongAdder socketWrites = new LongAdder();
+
+    private static Map<String, ClientHandler> clientHandlers = new ConcurrentHashMap<>();
+    private static Set<ClientHandler> connections = ConcurrentHashMap.newKeySet();
+    private static final List<ClientHandler> onlineById = new ArrayList<>();
+    private static MembershipIndex membership;
+    private static ServerSocket server;
+    private static SSLSocketFactory tlsFactory;
+    private static ThreadPoolExecutor handshakePool;
+    private static volatile boolean draining;
 
     public static void main(String[] args) throws Exception {
-        ServerSocket server = new ServerSocket(1234);
-        System.out.println("Server is ready to accept connections...");
-
-        while (true) {
-            Socket socket = server.accept();
+        // A PING goes out up to a tick after the interval and its PONG needs a round trip
+        // to come back; a shorter idle timeout reaps clients that answer every PING.
+        if (IDLE_TIMEOUT_MS <= HEARTBEAT_INTERVAL_MS + WHEEL_TICK_MS + HEARTBEAT_MAX_RTT_MS) {
+            throw new IllegalArgumentException("chat.idleTimeoutMs (" + IDLE_TIMEOUT_MS
+                    + ") must exceed chat.heartbeatIntervalMs (" + HEARTBEAT_INTERVAL_MS + ") + chat.wheelTickMs ("
+                    + WHEEL_TICK_MS + ") + chat.heartbeatMaxRttMs (" + HEARTBEAT_MAX_RTT_MS + ")");
+        }
+        long loadStart = System.nanoTime();
+        membership = MembershipIndex.load(new File(System.getProperty("chat.groups.snapshot", "groups.snapshot")),
+                new File(System.getProperty("chat.groups.log", "groups.log")),
+                Integer.getInteger("chat.groups.compactAfter", 100000));
+        System.out.println("Loaded " + membership.groupCount() + " groups in " + (System.nanoTime() - loadStart) / 1_000_000 + " ms");
+
+        server = new ServerSocket(1234);
+        if (TLS) {
+            initTls();
+        }
+        Runtime.getRuntime().addShutdownHook(new Thread(ChatServer::drain, "drain"));
+        System.out.println("Server is ready to accept " + (TLS ? "TLS " : "") + "connections...");
+
+        while (!draining) {
+            Socket socket;
+            try {
+                socket = server.accept();
+            } catch (SocketException e) {
+                if (draining) {
+                    break;
+                }
+                throw e;
+            }
             System.out.println("New client connected: " + socket);
 
-            ClientHandler clientHandler = new ClientHandler(socket);
-            new Thread(clientHandler).start();
+            if (TLS) {
+                try {
+                    handshakePool.execute(() -> startTls(socket));
+                } catch (RejectedExecutionException e) {
+                    System.out.println("Handshake queue full, dropping: " + socket);
+                    socket.close();
+                }
+            } else {
+                startHandler(socket);
+            }
+        }
+    }
+
+    // Keys and certificates come from the standard javax.net.ssl.keyStore properties.
+    // Handshakes run on a bounded pool so a reconnect storm queues (or is shed) there
+    // instead of stalling the accept loop.
+    private static void initTls() throws Exception {
+        SSLContext context = SSLContext.getDefault();
+        SSLSessionContext sessions = context.getServerSessionContext();
+        sessions.setSessionCacheSize(Integer.getInteger("chat.tls.sessionCacheSize", 20000));
+        sessions.setSessionTimeout(Integer.getInteger("chat.tls.sessionTimeoutSec", 86400));
+        tlsFactory = context.getSocketFactory();
+
+        int threads = Integer.getInteger("chat.tls.handshakeThreads", Runtime.getRuntime().availableProcessors());
+        int queue = Integer.getInteger("chat.tls.handshakeQueue", 1024);
+        handshakePool = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queue), new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    private static void startTls(Socket socket) {
+        try {
+            // Handshake flights are small back-to-back writes that Nagle would hold for an ACK.
+            socket.setTcpNoDelay(true);
+            socket.setSoTimeout(HANDSHAKE_TIMEOUT_MS);
+            SSLSocket tlsSocket = (SSLSocket) tlsFactory.createSocket(socket, socket.getInetAddress().getHostAddress(), socket.getPort(), true);
+            tlsSocket.setUseClientMode(false);
+            tlsSocket.startHandshake();
+            tlsSocket.setSoTimeout(0);
+            startHandler(tlsSocket);
+        } catch (IOException e) {
+            System.out.println("TLS handshake failed for " + socket + ": " + e.getMessage());
+            try {
+                socket.close();
+            } catch (IOException ex) {
+                ex.printStackTrace();
+            }
+        }
+    }
+
+    private static void startHandler(Socket socket) throws IOException {
+        if (draining) {
+            socket.close();
+            return;
         }
+        socket.setTcpNoDelay(TCP_NO_DELAY);
+        ClientHandler clientHandler = new ClientHandler(socket);
+        connections.add(clientHandler);
+        clientHandler.startWriter();
+        new Thread(clientHandler).start();
+    }
+
+    // Stops accepting, tells every connected client to reconnect elsewhere and waits
+    // up to the drain deadline for them to hang up before closing what is left. The
+    // notices are written by each connection's writer thread so a peer that stopped
+    // reading cannot hold the shutdown hook past the deadline; force-closing the
+    // sockets unblocks them.
+    public static void drain() {
+        if (draining) {
+            return;
+        }
+        draining = true;
+        System.out.println("Draining " + connections.size() + " connections...");
+        try {
+            server.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        if (handshakePool != null) {
+            handshakePool.shutdownNow();
+        }
+
+        String notice = RECONNECT_TO.isEmpty() ? "RECONNECT" : "RECONNECT " + RECONNECT_TO;
+        for (ClientHandler client : connections) {
+            client.sendMessage(notice);
+        }
+
+        long deadline = System.currentTimeMillis() + DRAIN_DEADLINE_MS;
+        while (!connections.isEmpty() && System.currentTimeMillis() < deadline) {
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                break;
+            }
+        }
+        for (ClientHandler client : connections) {
+            client.close();
+        }
+        timerWheel.stop();
+        try {
+            membership.snapshot();
+            membership.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        System.out.println("Send path: " + framesSent.sum() + " frames in " + socketWrites.sum() + " socket writes");
+        System.out.println("Drain complete.");
+    }
+
+    // Control frames (PING, PONG, RECONNECT) share the channel with chat text, so names
+    // that would start a broadcast with one of them are refused.
+    public static boolean isReservedName(String name) {
+        return name.startsWith("PING") || name.startsWith("PONG") || name.startsWith("RECONNECT");
+    }
+
+    public static boolean isDraining() {
+        return draining;
     }
 
     public static void broadcast(String message, ClientHandler excludeClient) {
@@ -38,50 +203,71 @@ public class ChatServer {
     }
 
     public static void createGroup(String groupName, ClientHandler creator) {
-        if (groups.containsKey(groupName)) {
-            creator.sendMessage("Group " + groupName + " already exists.");
-        } else {
-            groups.put(groupName, new HashSet<>());
-            groups.get(groupName).add(creator.getClientName());
-            creator.sendMessage("Group " + groupName + " created.");
+        try {
+            if (!membership.create(groupName, creator.getClientName())) {
+                creator.sendMessage("Group " + groupName + " already exists.");
+            } else {
+                creator.sendMessage("Group " + groupName + " created.");
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            creator.sendMessage("Could not create group " + groupName + ": " + e.getMessage());
         }
     }
 
     public static void addParticipantToGroup(String groupName, String participantName, ClientHandler requester) {
-        Set<String> group = groups.get(groupName);
-        if (group == null) {
+        if (!membership.exists(groupName)) {
             requester.sendMessage("Group " + groupName + " does not exist.");
         } else if (!clientHandlers.containsKey(participantName)) {
             requester.sendMessage("Client " + participantName + " does not exist.");
         } else {
-            group.add(participantName);
-            requester.sendMessage("Added " + participantName + " to group " + groupName + ".");
+            try {
+                membership.add(groupName, participantName);
+                requester.sendMessage("Added " + participantName + " to group " + groupName + ".");
+            } catch (IOException e) {
+                e.printStackTrace();
+                requester.sendMessage("Could not add " + participantName + " to group " + groupName + ": " + e.getMessage());
+            }
         }
     }
 
     public static void sendGroupMessage(String groupName, String message, ClientHandler sender) {
-        Set<String> group = groups.get(groupName);
-        if (group == null) {
+        if (!membership.exists(groupName)) {
             sender.sendMessage("Group " + groupName + " does not exist.");
-        } else if (!group.contains(sender.getClientName())) {
+        } else if (!membership.isMember(groupName, sender.getClientName())) {
             sender.sendMessage("You are not a member of group " + groupName + ".");
         } else {
-            for (String member : group) {
-                if (!member.equals(sender.getClientName())) {
-                    clientHandlers.get(member).sendMessage("Group " + groupName + " from " + sender.getClientName() + ": " + message);
+            // Offline members drop out in the bitmap intersection; the rest resolve by ID.
+            int[] memberIds = membership.onlineMembers(groupName);
+            List<ClientHandler> targets = new ArrayList<>(memberIds.length);
+            synchronized (onlineById) {
+                for (int id : memberIds) {
+                    ClientHandler member = onlineById.get(id);
+                    if (member != null && member != sender) {
+                        targets.add(member);
+                    }
                 }
             }
+            String groupMessage = "Group " + groupName + " from " + sender.getClientName() + ": " + message;
+            for (ClientHandler member : targets) {
+                member.sendMessage(groupMessage);
+            }
         }
     }
 
     public static void removeParticipantFromGroup(String groupName, String participantName, ClientHandler requester) {
-        Set<String> group = groups.get(groupName);
-        if (group == null) {
+        if (!membership.exists(groupName)) {
             requester.sendMessage("Group " + groupName + " does not exist.");
-        } else if (!group.contains(participantName)) {
+        } else if (!membership.isMember(groupName, participantName)) {
             requester.sendMessage("Client " + participantName + " is not a member of group " + groupName + ".");
         } else if (!requester.getClientName().equals(participantName)) {
-            group.remove(participantName);
+            try {
+                membership.remove(groupName, participantName);
+            } catch (IOException e) {
+                e.printStackTrace();
+                requester.sendMessage("Could not remove " + participantName + " from group " + groupName + ": " + e.getMessage());
+                return;
+            }
             requester.sendMessage("Removed " + participantName + " from group " + groupName + ".");
             ClientHandler participant = clientHandlers.get(participantName);
             if (participant != null) {
@@ -95,188 +281,27 @@ public class ChatServer {
 
     public static void addClient(String clientName, ClientHandler clientHandler) {
         clientHandlers.put(clientName, clientHandler);
-    }
-
-    public static void removeClient(ClientHandler clientHandler) {
-        clientHandlers.values().remove(clientHandler);
-    }
-}
-
-class ClientHandler implements Runnable {
-    private Socket socket;
-    private DataInputStream dis;
-    private DataOutputStream dos;
-    private String clientName;
-
-    public ClientHandler(Socket socket) throws IOException {
-        this.socket = socket;
-        this.dis = new DataInputStream(socket.getInputStream());
-        this.dos = new DataOutputStream(socket.getOutputStream());
-    }
-
-    @Override
-public void run() {
-    try {
-        
-        dos.writeUTF("Enter your name: ");
-        clientName = dis.readUTF();
-        ChatServer.addClient(clientName, this);
-        ChatServer.broadcast(clientName + " has joined the chat", this);
-
-        String msg;
-        while (true) {
-            msg = dis.readUTF();
-            if (msg.equalsIgnoreCase("Quit")) {
-                break;
-            }
-           if (msg.startsWith("VOICE")) {
-                               String[] parts = msg.split(" ");
-                               String fileName = parts[1];
-                               long fileSize = Long.parseLong(parts[2]);
-                               receiveVoiceMessage(fileName, fileSize);
-             }
-            if (msg.startsWith("@")) {
-                int spaceIndex = msg.indexOf(' ');
-                if (spaceIndex != -1) {
-                    String recipientName = msg.substring(1, spaceIndex);
-                    String privateMessage = msg.substring(spaceIndex + 1);
-                    ChatServer.sendPrivateMessage(privateMessage, recipientName, this);
-                } else {
-                    dos.writeUTF("Incorrect format. Use @recipientName message");
-                }
-            } else if (msg.startsWith("GROUP CREATE")) {
-                String groupName = msg.substring("GROUP CREATE".length()).trim();
-                ChatServer.createGroup(groupName, this);
-            } else if (msg.startsWith("GROUP ADD")) {
-                String[] parts = msg.split(" ");
-                String groupName = parts[2];
-                String participantName = parts[3];
-                ChatServer.addParticipantToGroup(groupName, participantName, this);
-            } else if (msg.startsWith("GROUP KICK")) {
-                String[] parts = msg.split(" ");
-                String groupName = parts[2];
-                String participantName = parts[3];
-                ChatServer.removeParticipantFromGroup(groupName, participantName, this);
-            } else if (msg.startsWith("GMSG")) {
-                int firstSpaceIndex = msg.indexOf(' ');
-                int secondSpaceIndex = msg.indexOf(' ', firstSpaceIndex + 1);
-                if (secondSpaceIndex != -1) {
-                    String groupName = msg.substring(firstSpaceIndex + 1, secondSpaceIndex);
-                    String groupMessage = msg.substring(secondSpaceIndex + 1);
-                    ChatServer.sendGroupMessage(groupName, groupMessage, this);
-                } else {
-                    dos.writeUTF("Incorrect format. Use GMSG groupName message");
-                }
-            } else if (msg.startsWith("FILE")) {
-                receiveFile(msg);
-            } else if (msg.startsWith("DOWNLOAD")) {
-                String fileName = msg.split(" ", 2)[1];
-                sendFile(fileName);
-            } else {
-                ChatServer.broadcast(clientName + ": " + msg, this);
-            }
-        }
-
-        dis.close();
-        dos.close();
-        socket.close();
-        ChatServer.broadcast(clientName + " has left the chat", this);
-        ChatServer.removeClient(this);
-    } catch (IOException e) {
-        e.printStackTrace();
-    }
-}  
-
-    public void sendMessage(String message) {
-        try {
-            dos.writeUTF(message);
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-    }
-
-    public void receiveFile(String fileInfo) throws IOException {
-        String[] parts = fileInfo.split(" ");
-        String fileName = parts[1];
-        long fileSize = Long.parseLong(parts[2]);
-
-        FileOutputStream fos = new FileOutputStream("server_" + fileName);
-        byte[] buffer = new byte[4096];
-        int bytesRead;
-        long totalRead = 0;
-
-        while (totalRead < fileSize && (bytesRead = dis.read(buffer, 0, (int)Math.min(buffer.length, fileSize - totalRead))) != -1) {
-            totalRead += bytesRead;
-            fos.write(buffer, 0, bytesRead);
-        }
-
-        fos.close();
-        ChatServer.broadcast(clientName + " shared a file: " + fileName, this);
-    }
-
-
-    public void receiveVoiceMessage(String fileName, long fileSize) throws IOException {
-        FileOutputStream fos = new FileOutputStream("server_" + fileName);
-        byte[] buffer = new byte[4096];
-        int bytesRead;
-        long totalRead = 0;
-
-        while (totalRead < fileSize && (bytesRead = dis.read(buffer, 0, (int)Math.min(buffer.length, fileSize - totalRead))) != -1) {
-            totalRead += bytesRead;
-            fos.write(buffer, 0, bytesRead);
-        }
-
-        fos.close();
-        ChatServer.broadcast(clientName + " sent a voice message: " + fileName, this);
-    }
-
-    public void sendVoiceMessage(String fileName) {
-        try {
-            File file = new File("server_" + fileName);
-            if (!file.exists()) {
-                dos.writeUTF("Voice message not found: " + fileName);
-                return;
-            }
-
-            dos.writeUTF("VOICE " + file.getName() + " " + file.length());
-            FileInputStream fis = new FileInputStream(file);
-            byte[] buffer = new byte[4096];
-            int bytesRead;
-
-            while ((bytesRead = fis.read(buffer)) != -1) {
-                dos.write(buffer, 0, bytesRead);
+        synchronized (onlineById) {
+            int id = membership.setOnline(clientName, true);
+            while (onlineById.size() <= id) {
+                onlineById.add(null);
             }
-
-            fis.close();
-        } catch (IOException e) {
-            e.printStackTrace();
+            onlineById.set(id, clientHandler);
         }
     }
-    
-    public void sendFile(String fileName) {
-        try {
-            File file = new File("server_" + fileName);
-            if (!file.exists()) {
-                dos.writeUTF("File not found: " + fileName);
-                return;
-            }
 
-            dos.writeUTF("FILE " + file.getName() + " " + file.length());
-            FileInputStream fis = new FileInputStream(file);
-            byte[] buffer = new byte[4096];
-            int bytesRead;
-
-            while ((bytesRead = fis.read(buffer)) != -1) {
-                dos.write(buffer, 0, bytesRead);
+    public static void removeClient(ClientHandler clientHandler) {
+        clientHandlers.values().remove(clientHandler);
+        synchronized (onlineById) {
+            int id = membership.intern(clientHandler.getClientName());
+            if (id < onlineById.size() && onlineById.get(id) == clientHandler) {
+                onlineById.set(id, null);
+                membership.setOnline(clientHandler.getClientName(), false);
             }
-
-            fis.close();
-        } catch (IOException e) {
-            e.printStackTrace();
         }
     }
 
-    public String getClientName() {
-        return clientName;
+    public static void removeConnection(ClientHandler clientHandler) {
+        connections.remove(clientHandler);
     }
 }
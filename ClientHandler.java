@@ -0,0 +1,408 @@
+import java.net.*;
+import java.io.*;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.*;
+
+class ClientHandler implements Runnable {
+    private Socket socket;
+    private DataInputStream dis;
+    private DataOutputStream dos;
+    private volatile String clientName;
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private final Object queueLock = new Object();
+    private FrameBuffer pending = new FrameBuffer();
+    private FrameBuffer spare = new FrameBuffer();
+    private final Thread writer;
+    private volatile long lastSeen = System.currentTimeMillis();
+    private volatile boolean closed;
+    private volatile boolean closing;
+    private volatile TimerWheel.Timeout heartbeat;
+
+    public ClientHandler(Socket socket) throws IOException {
+        this.socket = socket;
+        this.dis = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        this.dos = new DataOutputStream(socket.getOutputStream());
+        this.writer = new Thread(this::writeLoop, "writer " + socket.getRemoteSocketAddress());
+        this.writer.setDaemon(true);
+    }
+
+    public void startWriter() {
+        writer.start();
+    }
+
+    @Override
+public void run() {
+    try {
+        heartbeat = ChatServer.timerWheel.schedule(this::checkHeartbeat, ChatServer.HEARTBEAT_INTERVAL_MS);
+        sendMessage("Enter your name: ");
+        String name = dis.readUTF();
+        lastSeen = System.currentTimeMillis();
+        if (ChatServer.isReservedName(name)) {
+            sendMessage("Name " + name + " is reserved.");
+            return;
+        }
+        clientName = name;
+        ChatServer.addClient(clientName, this);
+        ChatServer.broadcast(clientName + " has joined the chat", this);
+
+        String msg;
+        while (true) {
+            msg = dis.readUTF();
+            lastSeen = System.currentTimeMillis();
+            if (msg.equals("PONG")) {
+                continue;
+            }
+            if (msg.equalsIgnoreCase("Quit")) {
+                break;
+            }
+           if (msg.startsWith("VOICE")) {
+                               String[] parts = msg.split(" ");
+                               String fileName = parts[1];
+                               long fileSize = Long.parseLong(parts[2]);
+                               receiveVoiceMessage(fileName, fileSize);
+             }
+            if (msg.startsWith("@")) {
+                int spaceIndex = msg.indexOf(' ');
+                if (spaceIndex != -1) {
+                    String recipientName = msg.substring(1, spaceIndex);
+                    String privateMessage = msg.substring(spaceIndex + 1);
+                    ChatServer.sendPrivateMessage(privateMessage, recipientName, this);
+                } else {
+                    sendMessage("Incorrect format. Use @recipientName message");
+                }
+            } else if (msg.startsWith("GROUP CREATE")) {
+                String groupName = msg.substring("GROUP CREATE".length()).trim();
+                ChatServer.createGroup(groupName, this);
+            } else if (msg.startsWith("GROUP ADD")) {
+                String[] parts = msg.split(" ");
+                String groupName = parts[2];
+                String participantName = parts[3];
+                ChatServer.addParticipantToGroup(groupName, participantName, this);
+            } else if (msg.startsWith("GROUP KICK")) {
+                String[] parts = msg.split(" ");
+                String groupName = parts[2];
+                String participantName = parts[3];
+                ChatServer.removeParticipantFromGroup(groupName, participantName, this);
+            } else if (msg.startsWith("GMSG")) {
+                int firstSpaceIndex = msg.indexOf(' ');
+                int secondSpaceIndex = msg.indexOf(' ', firstSpaceIndex + 1);
+                if (secondSpaceIndex != -1) {
+                    String groupName = msg.substring(firstSpaceIndex + 1, secondSpaceIndex);
+                    String groupMessage = msg.substring(secondSpaceIndex + 1);
+                    ChatServer.sendGroupMessage(groupName, groupMessage, this);
+                } else {
+                    sendMessage("Incorrect format. Use GMSG groupName message");
+                }
+            } else if (msg.startsWith("FILE")) {
+                receiveFile(msg);
+            } else if (msg.startsWith("DOWNLOAD")) {
+                String fileName = msg.split(" ", 2)[1];
+                sendFile(fileName);
+            } else {
+                ChatServer.broadcast(clientName + ": " + msg, this);
+            }
+        }
+    } catch (EOFException | SocketException e) {
+        // The peer hung up, or the connection was reaped or drained.
+    } catch (IOException e) {
+        e.printStackTrace();
+    } finally {
+        disconnect();
+    }
+}
+
+    // Runs on the timer wheel: reaps connections that have gone quiet past the idle
+    // timeout and pings named clients that have been silent for a heartbeat interval.
+    // Unnamed connections are not pinged, so they get the longer login timeout instead;
+    // a person may still be typing their name.
+    // The next check is due when the connection will next have been quiet for an
+    // interval, or at the reap deadline if that comes first, so a PONG landing just
+    // after a check cannot push the following PING out to twice the interval.
+    private void checkHeartbeat() {
+        if (closed || closing) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        long seen = lastSeen;
+        long idle = now - seen;
+        boolean named = clientName != null;
+        long timeout = named ? ChatServer.IDLE_TIMEOUT_MS : ChatServer.LOGIN_TIMEOUT_MS;
+        if (idle >= timeout) {
+            if (named) {
+                System.out.println("Reaping idle client: " + socket);
+                close();
+            } else {
+                System.out.println("Login timed out: " + socket);
+                sendMessage("No name received within " + timeout / 1000 + " s, closing the connection.");
+                closeAfterFlush();
+            }
+            return;
+        }
+        long next = seen + ChatServer.HEARTBEAT_INTERVAL_MS;
+        // Only queued here; the wheel thread also does the reaping, so it must never
+        // wait on a socket write. A tick of slack absorbs the wheel's rounding.
+        if (named && idle >= ChatServer.HEARTBEAT_INTERVAL_MS - ChatServer.WHEEL_TICK_MS) {
+            sendMessage("PING");
+            next = now + ChatServer.HEARTBEAT_INTERVAL_MS;
+        }
+        next = Math.min(next, seen + timeout);
+        heartbeat = ChatServer.timerWheel.schedule(this::checkHeartbeat, next - now);
+    }
+
+    // Aborts the connection at once, dropping anything still queued. Used when the peer
+    // is unresponsive or the drain deadline has passed.
+    public void close() {
+        closed = true;
+        synchronized (queueLock) {
+            queueLock.notifyAll();
+        }
+        TimerWheel.Timeout timeout = heartbeat;
+        if (timeout != null) {
+            timeout.cancel();
+        }
+        try {
+            socket.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    // Stops accepting frames and lets the writer send what is already queued before it
+    // closes the socket, giving up after chat.closeLingerMs.
+    public void closeAfterFlush() {
+        synchronized (queueLock) {
+            closing = true;
+            queueLock.notifyAll();
+        }
+        ChatServer.timerWheel.schedule(this::close, ChatServer.CLOSE_LINGER_MS);
+    }
+
+    private void disconnect() {
+        closeAfterFlush();
+        ChatServer.removeConnection(this);
+        if (clientName != null) {
+            ChatServer.removeClient(this);
+            if (!ChatServer.isDraining()) {
+                ChatServer.broadcast(clientName + " has left the chat", this);
+            }
+        }
+    }
+
+    // Frames are queued and sent by this connection's writer thread, which takes
+    // everything queued so far in a single socket write. Callers never touch the socket,
+    // so a peer that stops reading only stalls its own writer. A peer that falls more
+    // than chat.maxPendingBytes behind is dropped.
+    public void sendMessage(String message) {
+        if (closed || closing) {
+            return;
+        }
+        boolean overflow;
+        synchronized (queueLock) {
+            if (closed || closing) {
+                return;
+            }
+            boolean wasEmpty = pending.size() == 0;
+            try {
+                queue(message);
+            } catch (IOException e) {
+                e.printStackTrace();
+                return;
+            }
+            overflow = pending.size() > ChatServer.MAX_PENDING_BYTES;
+            if (overflow) {
+                closed = true;
+            }
+            if (wasEmpty || pending.size() >= ChatServer.FLUSH_MAX_BYTES) {
+                queueLock.notify();
+            }
+        }
+        if (overflow) {
+            System.out.println("Dropping slow client: " + socket);
+            close();
+        }
+    }
+
+    // Flush on idle writes as soon as frames are queued; with chat.flushMaxLatencyMs set
+    // the batch is held open until that much time passes or chat.flushMaxBytes queue up.
+    // Once closeAfterFlush() is called the rest goes out at once and the socket is closed.
+    private void writeLoop() {
+        try {
+            while (true) {
+                synchronized (queueLock) {
+                    while (pending.size() == 0 && !closed && !closing) {
+                        queueLock.wait();
+                    }
+                    if (closed) {
+                        return;
+                    }
+                    if (pending.size() == 0) {
+                        break;
+                    }
+                    long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(ChatServer.FLUSH_MAX_LATENCY_MS);
+                    long remaining;
+                    while (pending.size() < ChatServer.FLUSH_MAX_BYTES && !closed && !closing
+                            && (remaining = deadline - System.nanoTime()) > 0) {
+                        TimeUnit.NANOSECONDS.timedWait(queueLock, remaining);
+                    }
+                }
+                flush();
+            }
+        } catch (InterruptedException e) {
+            // Nothing left to send.
+        }
+        close();
+    }
+
+    // A failed write leaves the stream in an unknown state, so the connection is dropped
+    // rather than letting later batches pile up behind it.
+    private void flush() {
+        writeLock.lock();
+        try {
+            writePending();
+        } catch (SocketException e) {
+            // The peer hung up, or the connection was reaped or drained.
+            close();
+        } catch (IOException e) {
+            if (!closed) {
+                e.printStackTrace();
+            }
+            close();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    private void queue(String message) throws IOException {
+        synchronized (queueLock) {
+            pending.data.writeUTF(message);
+            ChatServer.framesSent.increment();
+        }
+    }
+
+    // Caller holds writeLock, which also makes it the only user of the spare buffer.
+    private void writePending() throws IOException {
+        FrameBuffer batch;
+        synchronized (queueLock) {
+            if (pending.size() == 0) {
+                return;
+            }
+            batch = pending;
+            pending = spare;
+        }
+        try {
+            batch.writeTo(dos);
+            ChatServer.socketWrites.increment();
+        } finally {
+            batch.reset();
+            spare = batch;
+        }
+    }
+
+    public void receiveFile(String fileInfo) throws IOException {
+        String[] parts = fileInfo.split(" ");
+        String fileName = parts[1];
+        long fileSize = Long.parseLong(parts[2]);
+
+        FileOutputStream fos = new FileOutputStream("server_" + fileName);
+        byte[] buffer = new byte[4096];
+        int bytesRead;
+        long totalRead = 0;
+
+        while (totalRead < fileSize && (bytesRead = dis.read(buffer, 0, (int)Math.min(buffer.length, fileSize - totalRead))) != -1) {
+            totalRead += bytesRead;
+            fos.write(buffer, 0, bytesRead);
+            lastSeen = System.currentTimeMillis();
+        }
+
+        fos.close();
+        ChatServer.broadcast(clientName + " shared a file: " + fileName, this);
+    }
+
+
+    public void receiveVoiceMessage(String fileName, long fileSize) throws IOException {
+        FileOutputStream fos = new FileOutputStream("server_" + fileName);
+        byte[] buffer = new byte[4096];
+        int bytesRead;
+        long totalRead = 0;
+
+        while (totalRead < fileSize && (bytesRead = dis.read(buffer, 0, (int)Math.min(buffer.length, fileSize - totalRead))) != -1) {
+            totalRead += bytesRead;
+            fos.write(buffer, 0, bytesRead);
+            lastSeen = System.currentTimeMillis();
+        }
+
+        fos.close();
+        ChatServer.broadcast(clientName + " sent a voice message: " + fileName, this);
+    }
+
+    public void sendVoiceMessage(String fileName) {
+        writeLock.lock();
+        try {
+            File file = new File("server_" + fileName);
+            if (!file.exists()) {
+                sendMessage("Voice message not found: " + fileName);
+                return;
+            }
+
+            sendMessage("VOICE " + file.getName() + " " + file.length());
+            writePending();
+            // Counts as activity while it moves, as in sendFile.
+            FileInputStream fis = new FileInputStream(file);
+            byte[] buffer = new byte[4096];
+            int bytesRead;
+
+            while ((bytesRead = fis.read(buffer)) != -1) {
+                dos.write(buffer, 0, bytesRead);
+                lastSeen = System.currentTimeMillis();
+            }
+
+            fis.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+    
+    public void sendFile(String fileName) {
+        writeLock.lock();
+        try {
+            File file = new File("server_" + fileName);
+            if (!file.exists()) {
+                sendMessage("File not found: " + fileName);
+                return;
+            }
+
+            sendMessage("FILE " + file.getName() + " " + file.length());
+            writePending();
+            // This thread cannot read PONGs while it streams, so a download that keeps
+            // moving counts as activity for the idle reaper, as uploads do.
+            FileInputStream fis = new FileInputStream(file);
+            byte[] buffer = new byte[4096];
+            int bytesRead;
+
+            while ((bytesRead = fis.read(buffer)) != -1) {
+                dos.write(buffer, 0, bytesRead);
+                lastSeen = System.currentTimeMillis();
+            }
+
+            fis.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    public String getClientName() {
+        return clientName;
+    }
+
+    private static class FrameBuffer extends ByteArrayOutputStream {
+        final DataOutputStream data = new DataOutputStream(this);
+
+        FrameBuffer() {
+            super(8192);
+        }
+    }
+}
@@ -0,0 +1,99 @@
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.awt.*;
+import java.awt.image.*;
+import javax.imageio.*;
+import javax.swing.*;
+
+// Decodes and scales button icons on a background pool so the frame can be shown with
+// same-sized placeholders right away. Scaled variants are kept in memory and written to
+// an on-disk cache, so later startups read a small PNG instead of the full-size source.
+class IconCache {
+    private static final File CACHE_DIR = new File(System.getProperty("chat.iconCacheDir", ".icon-cache"));
+
+    private final ExecutorService pool;
+    private final Map<String, CompletableFuture<ImageIcon>> icons = new ConcurrentHashMap<>();
+    private final Map<Dimension, ImageIcon> placeholders = new ConcurrentHashMap<>();
+
+    public IconCache() {
+        pool = Executors.newFixedThreadPool(Math.min(4, Runtime.getRuntime().availableProcessors()), runnable -> {
+            Thread thread = new Thread(runnable, "icon-loader");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public void apply(AbstractButton button, String iconName, int width, int height) {
+        button.setIcon(placeholder(width, height));
+        load(iconName, width, height).thenAccept(icon -> {
+            if (icon != null) {
+                SwingUtilities.invokeLater(() -> button.setIcon(icon));
+            }
+        });
+    }
+
+    public CompletableFuture<ImageIcon> load(String iconName, int width, int height) {
+        return icons.computeIfAbsent(iconName + "@" + width + "x" + height,
+                key -> CompletableFuture.supplyAsync(() -> decode(iconName, width, height), pool));
+    }
+
+    private ImageIcon placeholder(int width, int height) {
+        return placeholders.computeIfAbsent(new Dimension(width, height),
+                size -> new ImageIcon(new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB)));
+    }
+
+    private ImageIcon decode(String iconName, int width, int height) {
+        File source = new File(iconName);
+        if (!source.isFile()) {
+            return null;
+        }
+        String baseName = iconName.replaceFirst("\\.[^.]*$", "");
+        File cached = new File(CACHE_DIR, baseName + "_" + width + "x" + height + ".png");
+        try {
+            if (cached.isFile() && cached.lastModified() >= source.lastModified()) {
+                BufferedImage image = ImageIO.read(cached);
+                if (image != null) {
+                    return new ImageIcon(image);
+                }
+            }
+
+            BufferedImage original = ImageIO.read(source);
+            if (original == null) {
+                return null;
+            }
+            BufferedImage scaled = scale(original, width, height);
+
+            CACHE_DIR.mkdirs();
+            File tmp = File.createTempFile(baseName, ".tmp", CACHE_DIR);
+            ImageIO.write(scaled, "png", tmp);
+            Files.move(tmp.toPath(), cached.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            return new ImageIcon(scaled);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    // Halves the image until it is close to the target before the final bicubic pass,
+    // which keeps large reductions smooth without the cost of SCALE_SMOOTH averaging.
+    private static BufferedImage scale(BufferedImage image, int width, int height) {
+        BufferedImage current = image;
+        int w = image.getWidth();
+        int h = image.getHeight();
+        do {
+            w = Math.max(width, w / 2);
+            h = Math.max(height, h / 2);
+            BufferedImage next = new BufferedImage(w, h, BufferedImage.TYPE_INT_ARGB);
+            Graphics2D g = next.createGraphics();
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION,
+                    w == width && h == height ? RenderingHints.VALUE_INTERPOLATION_BICUBIC : RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            g.drawImage(current, 0, 0, w, h, null);
+            g.dispose();
+            current = next;
+        } while (w != width || h != height);
+        return current;
+    }
+}
@@ -0,0 +1,315 @@
+import java.io.*;
+import java.util.*;
+import java.util.function.*;
+
+// Compressed set of user IDs in the style of a roaring bitmap: IDs are bucketed by their
+// high 16 bits, and each bucket is a sorted char array while small or a 65536-bit bitmap
+// once it passes ARRAY_MAX entries. Intersections only visit buckets present in both sides.
+class MemberBitmap {
+    private static final int ARRAY_MAX = 4096;
+
+    private char[] keys = new char[2];
+    private Container[] containers = new Container[2];
+    private int size;
+
+    public void add(int id) {
+        char high = (char) (id >>> 16);
+        int i = indexOf(high);
+        if (i >= 0) {
+            containers[i] = containers[i].add((char) id);
+        } else {
+            insert(-i - 1, high, new ArrayContainer().add((char) id));
+        }
+    }
+
+    public void remove(int id) {
+        int i = indexOf((char) (id >>> 16));
+        if (i < 0) {
+            return;
+        }
+        Container container = containers[i].remove((char) id);
+        if (container.cardinality() == 0) {
+            System.arraycopy(keys, i + 1, keys, i, size - i - 1);
+            System.arraycopy(containers, i + 1, containers, i, size - i - 1);
+            containers[--size] = null;
+        } else {
+            containers[i] = container;
+        }
+    }
+
+    public boolean contains(int id) {
+        int i = indexOf((char) (id >>> 16));
+        return i >= 0 && containers[i].contains((char) id);
+    }
+
+    public int cardinality() {
+        int total = 0;
+        for (int i = 0; i < size; i++) {
+            total += containers[i].cardinality();
+        }
+        return total;
+    }
+
+    public void forEachAnd(MemberBitmap other, IntConsumer consumer) {
+        int i = 0;
+        int j = 0;
+        while (i < size && j < other.size) {
+            if (keys[i] < other.keys[j]) {
+                i++;
+            } else if (keys[i] > other.keys[j]) {
+                j++;
+            } else {
+                containers[i].forEachAnd(other.containers[j], keys[i] << 16, consumer);
+                i++;
+                j++;
+            }
+        }
+    }
+
+    public int[] andToArray(MemberBitmap other) {
+        int[][] result = {new int[16]};
+        int[] count = {0};
+        forEachAnd(other, id -> {
+            if (count[0] == result[0].length) {
+                result[0] = Arrays.copyOf(result[0], count[0] * 2);
+            }
+            result[0][count[0]++] = id;
+        });
+        return Arrays.copyOf(result[0], count[0]);
+    }
+
+    public void writeTo(DataOutput out) throws IOException {
+        out.writeInt(size);
+        for (int i = 0; i < size; i++) {
+            out.writeChar(keys[i]);
+            containers[i].writeTo(out);
+        }
+    }
+
+    public static MemberBitmap readFrom(DataInput in) throws IOException {
+        MemberBitmap bitmap = new MemberBitmap();
+        int size = in.readInt();
+        bitmap.keys = new char[Math.max(2, size)];
+        bitmap.containers = new Container[Math.max(2, size)];
+        for (int i = 0; i < size; i++) {
+            bitmap.keys[i] = in.readChar();
+            bitmap.containers[i] = in.readBoolean() ? BitmapContainer.readFrom(in) : ArrayContainer.readFrom(in);
+        }
+        bitmap.size = size;
+        return bitmap;
+    }
+
+    private int indexOf(char key) {
+        return Arrays.binarySearch(keys, 0, size, key);
+    }
+
+    private void insert(int i, char key, Container container) {
+        if (size == keys.length) {
+            keys = Arrays.copyOf(keys, size * 2);
+            containers = Arrays.copyOf(containers, size * 2);
+        }
+        System.arraycopy(keys, i, keys, i + 1, size - i);
+        System.arraycopy(containers, i, containers, i + 1, size - i);
+        keys[i] = key;
+        containers[i] = container;
+        size++;
+    }
+
+    private abstract static class Container {
+        abstract Container add(char value);
+
+        abstract Container remove(char value);
+
+        abstract boolean contains(char value);
+
+        abstract int cardinality();
+
+        abstract void forEachAnd(Container other, int base, IntConsumer consumer);
+
+        abstract void writeTo(DataOutput out) throws IOException;
+    }
+
+    private static class ArrayContainer extends Container {
+        private char[] values = new char[4];
+        private int cardinality;
+
+        @Override
+        Container add(char value) {
+            int i = Arrays.binarySearch(values, 0, cardinality, value);
+            if (i >= 0) {
+                return this;
+            }
+            if (cardinality == ARRAY_MAX) {
+                return toBitmap().add(value);
+            }
+            i = -i - 1;
+            if (cardinality == values.length) {
+                values = Arrays.copyOf(values, Math.min(ARRAY_MAX, cardinality * 2));
+            }
+            System.arraycopy(values, i, values, i + 1, cardinality - i);
+            values[i] = value;
+            cardinality++;
+            return this;
+        }
+
+        @Override
+        Container remove(char value) {
+            int i = Arrays.binarySearch(values, 0, cardinality, value);
+            if (i >= 0) {
+                System.arraycopy(values, i + 1, values, i, cardinality - i - 1);
+                cardinality--;
+            }
+            return this;
+        }
+
+        @Override
+        boolean contains(char value) {
+            return Arrays.binarySearch(values, 0, cardinality, value) >= 0;
+        }
+
+        @Override
+        int cardinality() {
+            return cardinality;
+        }
+
+        @Override
+        void forEachAnd(Container other, int base, IntConsumer consumer) {
+            if (other instanceof ArrayContainer) {
+                ArrayContainer that = (ArrayContainer) other;
+                int i = 0;
+                int j = 0;
+                while (i < cardinality && j < that.cardinality) {
+                    if (values[i] < that.values[j]) {
+                        i++;
+                    } else if (values[i] > that.values[j]) {
+                        j++;
+                    } else {
+                        consumer.accept(base | values[i]);
+                        i++;
+                        j++;
+                    }
+                }
+            } else {
+                for (int i = 0; i < cardinality; i++) {
+                    if (other.contains(values[i])) {
+                        consumer.accept(base | values[i]);
+                    }
+                }
+            }
+        }
+
+        @Override
+        void writeTo(DataOutput out) throws IOException {
+            out.writeBoolean(false);
+            out.writeShort(cardinality - 1);
+            for (int i = 0; i < cardinality; i++) {
+                out.writeChar(values[i]);
+            }
+        }
+
+        static ArrayContainer readFrom(DataInput in) throws IOException {
+            ArrayContainer container = new ArrayContainer();
+            container.cardinality = in.readUnsignedShort() + 1;
+            container.values = new char[container.cardinality];
+            for (int i = 0; i < container.cardinality; i++) {
+                container.values[i] = in.readChar();
+            }
+            return container;
+        }
+
+        private BitmapContainer toBitmap() {
+            BitmapContainer bitmap = new BitmapContainer();
+            for (int i = 0; i < cardinality; i++) {
+                bitmap.words[values[i] >>> 6] |= 1L << values[i];
+            }
+            bitmap.cardinality = cardinality;
+            return bitmap;
+        }
+    }
+
+    private static class BitmapContainer extends Container {
+        private final long[] words = new long[1024];
+        private int cardinality;
+
+        @Override
+        Container add(char value) {
+            long before = words[value >>> 6];
+            long after = before | (1L << value);
+            if (before != after) {
+                words[value >>> 6] = after;
+                cardinality++;
+            }
+            return this;
+        }
+
+        @Override
+        Container remove(char value) {
+            long before = words[value >>> 6];
+            long after = before & ~(1L << value);
+            if (before == after) {
+                return this;
+            }
+            words[value >>> 6] = after;
+            if (--cardinality <= ARRAY_MAX) {
+                return toArray();
+            }
+            return this;
+        }
+
+        @Override
+        boolean contains(char value) {
+            return (words[value >>> 6] & (1L << value)) != 0;
+        }
+
+        @Override
+        int cardinality() {
+            return cardinality;
+        }
+
+        @Override
+        void forEachAnd(Container other, int base, IntConsumer consumer) {
+            if (!(other instanceof BitmapContainer)) {
+                other.forEachAnd(this, base, consumer);
+                return;
+            }
+            long[] theirs = ((BitmapContainer) other).words;
+            for (int w = 0; w < words.length; w++) {
+                long word = words[w] & theirs[w];
+                while (word != 0) {
+                    consumer.accept(base | (w << 6) | Long.numberOfTrailingZeros(word));
+                    word &= word - 1;
+                }
+            }
+        }
+
+        @Override
+        void writeTo(DataOutput out) throws IOException {
+            out.writeBoolean(true);
+            for (long word : words) {
+                out.writeLong(word);
+            }
+        }
+
+        static BitmapContainer readFrom(DataInput in) throws IOException {
+            BitmapContainer container = new BitmapContainer();
+            for (int w = 0; w < container.words.length; w++) {
+                container.words[w] = in.readLong();
+                container.cardinality += Long.bitCount(container.words[w]);
+            }
+            return container;
+        }
+
+        private ArrayContainer toArray() {
+            ArrayContainer array = new ArrayContainer();
+            array.values = new char[cardinality];
+            for (int w = 0; w < words.length; w++) {
+                long word = words[w];
+                while (word != 0) {
+                    array.values[array.cardinality++] = (char) ((w << 6) | Long.numberOfTrailingZeros(word));
+                    word &= word - 1;
+                }
+            }
+            return array;
+        }
+    }
+}
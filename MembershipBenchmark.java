@@ -0,0 +1,80 @@
+import java.io.*;
+import java.util.*;
+
+// Builds a synthetic membership index, snapshots it, and times a cold reload, online-member
+// fan-out lookups against a partly online user base, and mutations during compaction.
+//
+//   java MembershipBenchmark [groups] [users] [logRecords]
+public class MembershipBenchmark {
+    public static void main(String[] args) throws Exception {
+        int groupCount = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+        int userCount = args.length > 1 ? Integer.parseInt(args[1]) : 200000;
+        int logRecords = args.length > 2 ? Integer.parseInt(args[2]) : 50000;
+
+        File dir = new File(System.getProperty("java.io.tmpdir"), "membership-bench-" + System.nanoTime());
+        dir.mkdirs();
+        File snapshot = new File(dir, "groups.snapshot");
+        File log = new File(dir, "groups.log");
+        Random random = new Random(42);
+
+        long start = System.nanoTime();
+        MembershipIndex index = MembershipIndex.load(snapshot, log, Integer.MAX_VALUE);
+        long memberships = 0;
+        for (int g = 0; g < groupCount; g++) {
+            String group = "group" + g;
+            index.create(group, "user" + random.nextInt(userCount));
+            // Mostly small groups with a tail of large ones.
+            int size = g % 1000 == 0 ? 20000 : 2 + random.nextInt(30);
+            for (int m = 0; m < size; m++) {
+                index.add(group, "user" + random.nextInt(userCount));
+            }
+            memberships += size + 1;
+        }
+        System.out.printf("Built %d groups / %d memberships in %d ms%n", groupCount, memberships, (System.nanoTime() - start) / 1_000_000);
+
+        start = System.nanoTime();
+        index.snapshot();
+        System.out.printf("Snapshot: %d ms, %d KB%n", (System.nanoTime() - start) / 1_000_000, snapshot.length() / 1024);
+        for (int i = 0; i < logRecords; i++) {
+            index.add("group" + random.nextInt(groupCount), "user" + random.nextInt(userCount));
+        }
+        index.close();
+
+        start = System.nanoTime();
+        MembershipIndex reloaded = MembershipIndex.load(snapshot, log, Integer.MAX_VALUE);
+        System.out.printf("Reload of %d groups + %d log records: %d ms%n", reloaded.groupCount(), logRecords, (System.nanoTime() - start) / 1_000_000);
+
+        for (int u = 0; u < userCount; u += 10) {
+            reloaded.setOnline("user" + u, true);
+        }
+        int lookups = 100000;
+        long targets = 0;
+        start = System.nanoTime();
+        for (int i = 0; i < lookups; i++) {
+            targets += reloaded.onlineMembers("group" + random.nextInt(groupCount)).length;
+        }
+        System.out.printf("Fan-out: %d lookups (10%% online) in %d ms, %d targets%n", lookups, (System.nanoTime() - start) / 1_000_000, targets);
+
+        start = System.nanoTime();
+        for (int i = 0; i < 1000; i++) {
+            targets += reloaded.onlineMembers("group" + (i % (groupCount / 1000) * 1000)).length;
+        }
+        System.out.printf("Fan-out: 1000 lookups on 20k-member groups in %d ms%n", (System.nanoTime() - start) / 1_000_000);
+        reloaded.close();
+
+        // With compaction on, the log rotates every logRecords mutations and the snapshot
+        // is rewritten in the background; the slowest mutation shows whether callers wait.
+        MembershipIndex compacting = MembershipIndex.load(snapshot, log, logRecords);
+        long slowest = 0;
+        start = System.nanoTime();
+        for (int i = 0; i < 4 * logRecords; i++) {
+            long mutationStart = System.nanoTime();
+            compacting.add("group" + random.nextInt(groupCount), "user" + random.nextInt(userCount));
+            slowest = Math.max(slowest, System.nanoTime() - mutationStart);
+        }
+        System.out.printf("Mutations: %d with compactAfter=%d in %d ms, slowest %.1f ms%n", 4 * logRecords, logRecords,
+                (System.nanoTime() - start) / 1_000_000, slowest / 1e6);
+        compacting.snapshot();
+        compacting.close();
+    }
+}
@@ -0,0 +1,339 @@
+import java.io.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.zip.*;
+
+// Group membership keyed by dense user IDs. Every user name is interned once, groups and
+// the set of online users are MemberBitmaps, and fan-out is a bitmap intersection.
+//
+// State is persisted as a snapshot plus an append-only change log. Every mutation is
+// written to the log before it is applied, so one that cannot be logged is not made at
+// all. Once the log passes compactAfter records it is rotated to
+// <log>.1 and a background thread folds that into a fresh snapshot, so mutations never
+// wait on a snapshot write. Loading reads the snapshot and replays both logs, and
+// replaying records already folded into the snapshot is harmless.
+class MembershipIndex {
+    private static final int SNAPSHOT_MAGIC = 0x43475250;
+    private static final byte OP_CREATE = 1;
+    private static final byte OP_ADD = 2;
+    private static final byte OP_REMOVE = 3;
+
+    private final Map<String, Integer> userIds = new HashMap<>();
+    private final List<String> userNames = new ArrayList<>();
+    private final Map<String, MemberBitmap> groups = new HashMap<>();
+    private final MemberBitmap online = new MemberBitmap();
+
+    private final File snapshotFile;
+    private final File logFile;
+    private final File rotatedLogFile;
+    private final int compactAfter;
+    // Held while the snapshot file is being rewritten, by the compactor or by snapshot().
+    private final Object compactionLock = new Object();
+    private final ByteArrayOutputStream record = new ByteArrayOutputStream();
+    private final DataOutputStream recordData = new DataOutputStream(record);
+    private FileOutputStream log;
+    private long logLength;
+    private int logRecords;
+    // True while rotatedLogFile exists and has not been folded into the snapshot yet.
+    private boolean compacting;
+
+    private MembershipIndex(File snapshotFile, File logFile, int compactAfter) {
+        this.snapshotFile = snapshotFile;
+        this.logFile = logFile;
+        this.rotatedLogFile = new File(logFile.getPath() + ".1");
+        this.compactAfter = compactAfter;
+    }
+
+    public static MembershipIndex load(File snapshotFile, File logFile, int compactAfter) throws IOException {
+        MembershipIndex index = new MembershipIndex(snapshotFile, logFile, compactAfter);
+        if (snapshotFile.isFile()) {
+            index.readSnapshot();
+        }
+        // A rotated log is left behind when the server stopped mid-compaction.
+        if (index.rotatedLogFile.isFile() || logFile.length() > 0) {
+            index.replayLog(index.rotatedLogFile);
+            index.replayLog(logFile);
+            // Folding the logs into a fresh snapshot also drops any torn tail record.
+            index.snapshot();
+        } else {
+            index.openLog(true);
+        }
+        return index;
+    }
+
+    public synchronized int intern(String user) {
+        Integer id = userIds.get(user);
+        if (id == null) {
+            id = userNames.size();
+            userIds.put(user, id);
+            userNames.add(user);
+        }
+        return id;
+    }
+
+    public synchronized String userName(int id) {
+        return userNames.get(id);
+    }
+
+    public synchronized int groupCount() {
+        return groups.size();
+    }
+
+    public synchronized boolean exists(String group) {
+        return groups.containsKey(group);
+    }
+
+    public synchronized boolean isMember(String group, String user) {
+        MemberBitmap members = groups.get(group);
+        Integer id = userIds.get(user);
+        return members != null && id != null && members.contains(id);
+    }
+
+    public synchronized boolean create(String group, String creator) throws IOException {
+        if (groups.containsKey(group)) {
+            return false;
+        }
+        append(OP_CREATE, group, creator);
+        applyCreate(group, creator);
+        compactIfDue();
+        return true;
+    }
+
+    public synchronized void add(String group, String user) throws IOException {
+        MemberBitmap members = groups.get(group);
+        append(OP_ADD, group, user);
+        members.add(intern(user));
+        compactIfDue();
+    }
+
+    public synchronized void remove(String group, String user) throws IOException {
+        MemberBitmap members = groups.get(group);
+        append(OP_REMOVE, group, user);
+        members.remove(intern(user));
+        compactIfDue();
+    }
+
+    public synchronized int setOnline(String user, boolean isOnline) {
+        int id = intern(user);
+        if (isOnline) {
+            online.add(id);
+        } else {
+            online.remove(id);
+        }
+        return id;
+    }
+
+    // IDs of the group's members that are currently online, in ascending order.
+    public synchronized int[] onlineMembers(String group) {
+        MemberBitmap members = groups.get(group);
+        return members == null ? new int[0] : members.andToArray(online);
+    }
+
+    // Writes the full in-memory state and starts both logs afresh. Blocks mutations for
+    // the whole write, so it is meant for startup and drain; steady-state compaction
+    // happens on the background compactor instead.
+    public void snapshot() throws IOException {
+        synchronized (compactionLock) {
+            synchronized (this) {
+                writeSnapshot();
+                Files.deleteIfExists(rotatedLogFile.toPath());
+                if (log != null) {
+                    log.close();
+                }
+                openLog(false);
+                compacting = false;
+            }
+        }
+    }
+
+    public synchronized void close() throws IOException {
+        log.close();
+    }
+
+    private void applyCreate(String group, String creator) {
+        MemberBitmap members = groups.computeIfAbsent(group, key -> new MemberBitmap());
+        members.add(intern(creator));
+    }
+
+    private void openLog(boolean append) throws IOException {
+        log = new FileOutputStream(logFile, append);
+        logLength = append ? logFile.length() : 0;
+        logRecords = 0;
+    }
+
+    // Each record goes out in a single write. If that fails, whatever part of it reached
+    // the file is cut off again, so a retry or later record does not land behind a torn one.
+    private void append(byte op, String group, String user) throws IOException {
+        record.reset();
+        recordData.writeByte(op);
+        recordData.writeUTF(group);
+        recordData.writeUTF(user);
+        try {
+            record.writeTo(log);
+        } catch (IOException e) {
+            try {
+                log.getChannel().truncate(logLength);
+            } catch (IOException truncateFailure) {
+                e.addSuppressed(truncateFailure);
+            }
+            throw e;
+        }
+        logLength += record.size();
+        logRecords++;
+    }
+
+    // Runs after the mutation is logged and applied, so a failed rotation cannot undo it;
+    // the current log just keeps growing until the next attempt.
+    private void compactIfDue() {
+        if (logRecords < compactAfter || compacting) {
+            return;
+        }
+        try {
+            log.close();
+            try {
+                Files.move(logFile.toPath(), rotatedLogFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                openLog(true);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
+        }
+        compacting = true;
+        Thread compactor = new Thread(this::compact, "membership compactor");
+        compactor.setDaemon(true);
+        compactor.start();
+    }
+
+    // Rebuilds the snapshot from disk (old snapshot plus the rotated log) in a scratch
+    // index, so the live index stays available while the new snapshot is written.
+    private void compact() {
+        synchronized (compactionLock) {
+            if (!rotatedLogFile.isFile()) {
+                // A synchronous snapshot() already folded it in.
+                return;
+            }
+            try {
+                MembershipIndex compacted = new MembershipIndex(snapshotFile, logFile, compactAfter);
+                if (snapshotFile.isFile()) {
+                    compacted.readSnapshot();
+                }
+                compacted.replayLog(rotatedLogFile);
+                compacted.writeSnapshot();
+                synchronized (this) {
+                    Files.delete(rotatedLogFile.toPath());
+                    compacting = false;
+                }
+            } catch (IOException e) {
+                // The rotated log stays put and rotation stops; the next snapshot() or load
+                // folds it in.
+                e.printStackTrace();
+            }
+        }
+    }
+
+    // The snapshot ends with a CRC32 of everything before it. The temp file is synced
+    // before the rename and the directory after it, so the snapshot is durable before
+    // the caller drops any log.
+    private void writeSnapshot() throws IOException {
+        File tmp = new File(snapshotFile.getPath() + ".tmp");
+        try (FileOutputStream file = new FileOutputStream(tmp)) {
+            CheckedOutputStream checked = new CheckedOutputStream(new BufferedOutputStream(file, 1 << 16), new CRC32());
+            DataOutputStream out = new DataOutputStream(checked);
+            out.writeInt(SNAPSHOT_MAGIC);
+            out.writeInt(userNames.size());
+            for (String user : userNames) {
+                out.writeUTF(user);
+            }
+            out.writeInt(groups.size());
+            for (Map.Entry<String, MemberBitmap> entry : groups.entrySet()) {
+                out.writeUTF(entry.getKey());
+                entry.getValue().writeTo(out);
+            }
+            out.writeLong(checked.getChecksum().getValue());
+            out.flush();
+            file.getFD().sync();
+        }
+        Files.move(tmp.toPath(), snapshotFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        syncDirectory(snapshotFile);
+    }
+
+    private static void syncDirectory(File file) throws IOException {
+        Path dir = file.getAbsoluteFile().getParentFile().toPath();
+        try (FileChannel channel = FileChannel.open(dir, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (AccessDeniedException e) {
+            // Windows cannot open a directory; there the rename is as durable as NTFS makes it.
+        }
+    }
+
+    private void readSnapshot() throws IOException {
+        verifySnapshot();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(snapshotFile), 1 << 16))) {
+            if (in.readInt() != SNAPSHOT_MAGIC) {
+                throw new IOException("Not a membership snapshot: " + snapshotFile);
+            }
+            int users = in.readInt();
+            for (int i = 0; i < users; i++) {
+                intern(in.readUTF());
+            }
+            int groupCount = in.readInt();
+            for (int i = 0; i < groupCount; i++) {
+                String group = in.readUTF();
+                groups.put(group, MemberBitmap.readFrom(in));
+            }
+        }
+    }
+
+    // Checks the CRC32 trailer before anything is parsed. The log is truncated once a
+    // snapshot lands, so there is no older state to fall back to: refuse to start rather
+    // than come up with groups silently missing.
+    private void verifySnapshot() throws IOException {
+        long length = snapshotFile.length() - 8;
+        CRC32 crc = new CRC32();
+        try (DataInputStream in = new DataInputStream(new FileInputStream(snapshotFile))) {
+            byte[] buffer = new byte[1 << 16];
+            for (long remaining = length; remaining > 0; ) {
+                int read = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                if (read < 0) {
+                    break;
+                }
+                crc.update(buffer, 0, read);
+                remaining -= read;
+            }
+            if (length < 8 || in.readLong() != crc.getValue()) {
+                throw new IOException("Membership snapshot " + snapshotFile + " is corrupt (checksum mismatch). "
+                        + "Restore it from a backup, or move it and " + logFile + " aside to start with no groups.");
+            }
+        }
+    }
+
+    // A torn record at the tail (crash mid-append) ends the replay.
+    private void replayLog(File file) throws IOException {
+        if (!file.isFile()) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16))) {
+            while (true) {
+                byte op;
+                String group;
+                String user;
+                try {
+                    op = in.readByte();
+                    group = in.readUTF();
+                    user = in.readUTF();
+                } catch (EOFException e) {
+                    break;
+                }
+                if (op == OP_CREATE) {
+                    applyCreate(group, user);
+                } else if (op == OP_ADD && groups.containsKey(group)) {
+                    groups.get(group).add(intern(user));
+                } else if (op == OP_REMOVE && groups.containsKey(group)) {
+                    groups.get(group).remove(intern(user));
+                }
+            }
+        }
+    }
+}
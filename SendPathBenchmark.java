@@ -0,0 +1,72 @@
+import java.net.*;
+import java.io.*;
+import java.util.*;
+
+// Fans chat frames out from several sender threads to loopback clients through
+// ClientHandler.sendMessage and reports how many socket writes each delivered frame
+// cost. Try it with different -Dchat.flushMaxLatencyMs values.
+//
+//   java [-Dchat.flushMaxLatencyMs=...] SendPathBenchmark [clients] [senders] [messagesPerSender]
+public class SendPathBenchmark {
+    public static void main(String[] args) throws Exception {
+        int clients = args.length > 0 ? Integer.parseInt(args[0]) : 50;
+        int senders = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+        int messages = args.length > 2 ? Integer.parseInt(args[2]) : 2000;
+
+        List<ClientHandler> handlers = new ArrayList<>();
+        List<Thread> readers = new ArrayList<>();
+        long expected = (long) senders * messages;
+        try (ServerSocket server = new ServerSocket(0)) {
+            for (int i = 0; i < clients; i++) {
+                Socket client = new Socket("localhost", server.getLocalPort());
+                Socket accepted = server.accept();
+                accepted.setTcpNoDelay(ChatServer.TCP_NO_DELAY);
+                ClientHandler handler = new ClientHandler(accepted);
+                handler.startWriter();
+                handlers.add(handler);
+                Thread reader = new Thread(() -> {
+                    try (DataInputStream in = new DataInputStream(new BufferedInputStream(client.getInputStream()))) {
+                        for (long received = 0; received < expected; received++) {
+                            in.readUTF();
+                        }
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                    }
+                });
+                reader.start();
+                readers.add(reader);
+            }
+        }
+
+        String payload = "x".repeat(100);
+        long start = System.nanoTime();
+        List<Thread> threads = new ArrayList<>();
+        for (int s = 0; s < senders; s++) {
+            Thread sender = new Thread(() -> {
+                for (int m = 0; m < messages; m++) {
+                    for (ClientHandler handler : handlers) {
+                        handler.sendMessage(payload);
+                    }
+                }
+            });
+            sender.start();
+            threads.add(sender);
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        for (Thread reader : readers) {
+            reader.join();
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        long frames = ChatServer.framesSent.sum();
+        long writes = ChatServer.socketWrites.sum();
+        System.out.printf("Delivered %d frames in %d socket writes (%.3f writes/frame), %.0f frames/s%n",
+                frames, writes, (double) writes / frames, frames / seconds);
+        for (ClientHandler handler : handlers) {
+            handler.close();
+        }
+        System.exit(0);
+    }
+}
@@ -0,0 +1,93 @@
+import java.util.*;
+import java.util.concurrent.*;
+
+// Hashed timer wheel: one thread serves every scheduled timeout, so thousands of
+// idle-connection checks cost a bucket slot each instead of a sleeping thread each.
+class TimerWheel {
+    private final long tickMillis;
+    private final List<Set<Timeout>> buckets;
+    private final Queue<Timeout> pending = new ConcurrentLinkedQueue<>();
+    private final Thread worker;
+    private volatile boolean running = true;
+    private long tick;
+
+    public TimerWheel(long tickMillis, int wheelSize) {
+        this.tickMillis = tickMillis;
+        this.buckets = new ArrayList<>(wheelSize);
+        for (int i = 0; i < wheelSize; i++) {
+            buckets.add(new HashSet<>());
+        }
+        this.worker = new Thread(this::runWheel, "timer-wheel");
+        this.worker.setDaemon(true);
+        this.worker.start();
+    }
+
+    public Timeout schedule(Runnable task, long delayMillis) {
+        Timeout timeout = new Timeout(task, Math.max(1, (delayMillis + tickMillis - 1) / tickMillis));
+        pending.add(timeout);
+        return timeout;
+    }
+
+    public void stop() {
+        running = false;
+        worker.interrupt();
+    }
+
+    private void runWheel() {
+        long nextTick = System.nanoTime();
+        while (running) {
+            nextTick += TimeUnit.MILLISECONDS.toNanos(tickMillis);
+            long sleepNanos = nextTick - System.nanoTime();
+            if (sleepNanos > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(sleepNanos);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+
+            Timeout added;
+            while ((added = pending.poll()) != null) {
+                if (!added.cancelled) {
+                    long deadlineTick = tick + added.ticks;
+                    added.rounds = (added.ticks - 1) / buckets.size();
+                    buckets.get((int) (deadlineTick % buckets.size())).add(added);
+                }
+            }
+
+            tick++;
+            Iterator<Timeout> it = buckets.get((int) (tick % buckets.size())).iterator();
+            while (it.hasNext()) {
+                Timeout timeout = it.next();
+                if (timeout.cancelled) {
+                    it.remove();
+                } else if (timeout.rounds > 0) {
+                    timeout.rounds--;
+                } else {
+                    it.remove();
+                    try {
+                        timeout.task.run();
+                    } catch (RuntimeException e) {
+                        e.printStackTrace();
+                    }
+                }
+            }
+        }
+    }
+
+    static class Timeout {
+        private final Runnable task;
+        private final long ticks;
+        private long rounds;
+        private volatile boolean cancelled;
+
+        Timeout(Runnable task, long ticks) {
+            this.task = task;
+            this.ticks = ticks;
+        }
+
+        public void cancel() {
+            cancelled = true;
+        }
+    }
+}
@@ -0,0 +1,141 @@
+import java.net.*;
+import java.io.*;
+import javax.net.ssl.*;
+
+// Measures connection setup rate and chat throughput against a running ChatServer.
+// Run it once against a plaintext server and once with -Dchat.tls=true (plus the
+// javax.net.ssl.trustStore properties) against a TLS server to compare the two. Both
+// modes run the identical workload; each figure is the median of several runs after
+// a discarded warm-up run, with the min-max spread alongside.
+//
+//   java [-Dchat.tls=true -Djavax.net.ssl.trustStore=...] TlsBenchmark [host] [port] [connections] [messages] [runs]
+public class TlsBenchmark {
+    private static final boolean TLS = Boolean.getBoolean("chat.tls");
+    private static TrustManager[] trustManagers;
+
+    public static void main(String[] args) throws Exception {
+        String host = args.length > 0 ? args[0] : "localhost";
+        int port = args.length > 1 ? Integer.parseInt(args[1]) : 1234;
+        int connections = args.length > 2 ? Integer.parseInt(args[2]) : 500;
+        int messages = args.length > 3 ? Integer.parseInt(args[3]) : 20000;
+        int runs = args.length > 4 ? Integer.parseInt(args[4]) : 5;
+
+        System.out.println("Transport: " + (TLS ? "TLS" : "plaintext") + ", " + runs + " runs");
+        if (TLS) {
+            TrustManagerFactory factory = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+            factory.init((java.security.KeyStore) null);
+            trustManagers = factory.getTrustManagers();
+            report("Full handshakes/s", runs, () -> connectRate(host, port, connections, false));
+            report("Resumed handshakes/s", runs, () -> connectRate(host, port, connections, true));
+        } else {
+            report("Connections/s", runs, () -> connectRate(host, port, connections, true));
+        }
+        report("Throughput msg/s", runs, () -> throughput(host, port, messages));
+    }
+
+    private interface Measurement {
+        double run() throws Exception;
+    }
+
+    private static void report(String label, int runs, Measurement measurement) throws Exception {
+        measurement.run();
+        double[] samples = new double[runs];
+        for (int i = 0; i < runs; i++) {
+            samples[i] = measurement.run();
+        }
+        java.util.Arrays.sort(samples);
+        System.out.printf("%-22s median %10.1f  (min %.1f, max %.1f)%n", label, samples[runs / 2], samples[0], samples[runs - 1]);
+    }
+
+    // A fresh SSLContext per connection has an empty session cache, forcing a full handshake.
+    private static double connectRate(String host, int port, int connections, boolean reuseSessions) throws Exception {
+        SSLContext shared = TLS ? newContext() : null;
+        long start = System.nanoTime();
+        for (int i = 0; i < connections; i++) {
+            SSLContext context = TLS && !reuseSessions ? newContext() : shared;
+            try (Socket socket = connect(context, host, port)) {
+                new DataInputStream(socket.getInputStream()).readUTF();
+            }
+        }
+        return connections / ((System.nanoTime() - start) / 1e9);
+    }
+
+    private static double throughput(String host, int port, int messages) throws Exception {
+        SSLContext context = TLS ? newContext() : null;
+        try (Socket senderSocket = connect(context, host, port); Socket receiverSocket = connect(context, host, port)) {
+            DataInputStream senderIn = new DataInputStream(senderSocket.getInputStream());
+            DataOutputStream senderOut = new DataOutputStream(new BufferedOutputStream(senderSocket.getOutputStream()));
+            DataInputStream receiverIn = new DataInputStream(new BufferedInputStream(receiverSocket.getInputStream()));
+            DataOutputStream receiverOut = new DataOutputStream(receiverSocket.getOutputStream());
+
+            String suffix = Long.toString(System.nanoTime());
+            senderIn.readUTF();
+            senderOut.writeUTF("bench-sender-" + suffix);
+            senderOut.flush();
+            receiverIn.readUTF();
+            receiverOut.writeUTF("bench-receiver-" + suffix);
+            // Broadcasts only reach registered clients. A private message to the receiver is
+            // answered with "Private to ..." once the server has registered both ends.
+            String reply = "";
+            while (!reply.startsWith("Private to ")) {
+                Thread.sleep(10);
+                senderOut.writeUTF("@bench-receiver-" + suffix + " sync");
+                senderOut.flush();
+                do {
+                    reply = senderIn.readUTF();
+                } while (!reply.startsWith("Private to ") && !reply.endsWith(" not found."));
+            }
+
+            String payload = "x".repeat(100);
+            long start = System.nanoTime();
+            Thread sender = new Thread(() -> {
+                try {
+                    for (int i = 0; i < messages; i++) {
+                        senderOut.writeUTF(payload);
+                    }
+                    senderOut.flush();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            });
+            sender.start();
+
+            int received = 0;
+            while (received < messages) {
+                String msg = receiverIn.readUTF();
+                if (msg.equals("PING")) {
+                    receiverOut.writeUTF("PONG");
+                } else if (msg.endsWith(payload)) {
+                    received++;
+                }
+            }
+            double rate = messages / ((System.nanoTime() - start) / 1e9);
+            sender.join();
+            senderOut.writeUTF("Quit");
+            senderOut.flush();
+            receiverOut.writeUTF("Quit");
+            return rate;
+        }
+    }
+
+    private static SSLContext newContext() throws Exception {
+        SSLContext context = SSLContext.getInstance("TLS");
+        context.init(null, trustManagers, null);
+        return context;
+    }
+
+    private static Socket connect(SSLContext context, String host, int port) throws IOException {
+        if (context == null) {
+            Socket socket = new Socket(host, port);
+            socket.setTcpNoDelay(true);
+            return socket;
+        }
+        SSLSocket socket = (SSLSocket) context.getSocketFactory().createSocket(host, port);
+        SSLParameters parameters = socket.getSSLParameters();
+        parameters.setEndpointIdentificationAlgorithm("HTTPS");
+        socket.setSSLParameters(parameters);
+        socket.setTcpNoDelay(true);
+        socket.startHandshake();
+        return socket;
+    }
+}